@@ -11,23 +11,28 @@ import java.awt.image.BufferedImage;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
-import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class BinaryWebSocketHandlerMP extends BinaryWebSocketHandler {
     private final ConcurrentHashMap<String, SessionState> sessionStates = new ConcurrentHashMap<>();
     private final ImageProcessor imageProcessor;
+    private final TiledImageProcessor tiledImageProcessor;
+    private final PngEncoder pngEncoder;
+    private final LeadImageStore leadImageStore; // null, gdy pobieranie przez HTTP jest wyłączone
 
-    private static final List<File> outputFiles = Arrays.asList(
-            new File("I.png"), new File("II.png"), new File("III.png"),
-            new File("aVR.png"), new File("aVL.png"), new File("aVF.png"),
-            new File("V1.png"), new File("V2.png"), new File("V3.png"),
-            new File("V4.png"), new File("V5.png"), new File("V6.png")
-    );
+    private static final List<File> outputFiles = LeadImageStore.LEAD_NAMES.stream()
+            .map(name -> new File(name + ".png"))
+            .toList();
 
-    public BinaryWebSocketHandlerMP(ImageProcessor imageProcessor) {
+    public BinaryWebSocketHandlerMP(ImageProcessor imageProcessor, TiledImageProcessor tiledImageProcessor,
+                                    PngEncoder pngEncoder, LeadImageStore leadImageStore) {
         this.imageProcessor = imageProcessor;
+        this.tiledImageProcessor = tiledImageProcessor;
+        this.pngEncoder = pngEncoder;
+        this.leadImageStore = leadImageStore;
     }
 
     @Override
@@ -64,22 +69,34 @@ public class BinaryWebSocketHandlerMP extends BinaryWebSocketHandler {
 
     private void processCompleteImage(WebSocketSession session, SessionState state) throws IOException {
         byte[] imageBytes = state.imageBuffer.toByteArray();
-        BufferedImage receivedImage = ImageIO.read(new ByteArrayInputStream(imageBytes));
-        if (receivedImage == null) {
-            throw new IOException("Nie udało się odczytać obrazu PNG.");
-        }
-        int width = receivedImage.getWidth();
-        int height = receivedImage.getHeight();
-
-        // Zapis oryginalnego obrazu jako received.png (dla debugowania)
-        ImageIO.write(receivedImage, "png", new File("received.png"));
+        state.imageBuffer = null;
 
         // Przetwarzamy obraz – otrzymujemy listę 12 skompresowanych bitmap (bez zmian)
-        java.util.List<ImageProcessor.CompressedBitmap> compressedBitmaps = imageProcessor.processImage(receivedImage);
+        java.util.List<ImageProcessor.CompressedBitmap> compressedBitmaps;
+        if (tiledImageProcessor.shouldProcessTiled(imageBytes)) {
+            // Duży skan – przetwarzanie pasmami, bez dekodowania całego obrazu naraz
+            System.out.println("Przetwarzanie pasmami.");
+            // Zapis otrzymanych bajtów jako received.png (dla debugowania)
+            Files.write(Path.of("received.png"), imageBytes);
+            compressedBitmaps = tiledImageProcessor.processImage(imageBytes);
+        } else {
+            BufferedImage receivedImage = ImageIO.read(new ByteArrayInputStream(imageBytes));
+            if (receivedImage == null) {
+                throw new IOException("Nie udało się odczytać obrazu PNG.");
+            }
+
+            // Zapis oryginalnego obrazu jako received.png (dla debugowania)
+            ImageIO.write(receivedImage, "png", new File("received.png"));
+
+            compressedBitmaps = imageProcessor.processImage(receivedImage);
+        }
         if (compressedBitmaps.isEmpty()) {
             System.err.println("Błąd: Przetwarzanie obrazu nie zwróciło wyników.");
             return;
         }
+        if (leadImageStore != null) {
+            leadImageStore.update(session.getId(), compressedBitmaps);
+        }
 
         int numImages = compressedBitmaps.size();
         // Całkowity rozmiar danych: 1 int (liczba obrazów) + dla każdego obrazu 4 inty + długość tablicy danych
@@ -95,22 +112,13 @@ public class BinaryWebSocketHandlerMP extends BinaryWebSocketHandler {
         for (int i = 0; i < numImages; i++) {
             ImageProcessor.CompressedBitmap cb = compressedBitmaps.get(i);
 
-            // Odtworzenie i zapis obrazu w formie PNG
-            BufferedImage outputImage = new BufferedImage(cb.width, cb.height, BufferedImage.TYPE_BYTE_BINARY);
-            for (int y = 0; y < cb.height; y++) {
-                for (int x = 0; x < cb.width; x++) {
-                    int bitIndex = y * cb.width + x;
-                    int value = (cb.data[bitIndex / 32] >> (bitIndex % 32)) & 1;
-                    outputImage.setRGB(x, y, value == 1 ? 0x000000 : 0xFFFFFF);
-                }
-            }
-
+            // Zapis obrazu w formie PNG (bezpośrednio z bitów, bez BufferedImage)
             File outputFile = outputFiles.get(i);
-            boolean saved = ImageIO.write(outputImage, "png", outputFile);
-            if (saved) {
+            try {
+                pngEncoder.write(cb, outputFile);
                 System.out.println("Zapisano wykres do: " + outputFile.getName());
-            } else {
-                System.err.println("Nie udało się zapisać wykresu: " + outputFile.getName());
+            } catch (IOException e) {
+                System.err.println("Nie udało się zapisać wykresu: " + outputFile.getName() + " (" + e.getMessage() + ")");
             }
 
             compressedData[index++] = cb.smallPx;
@@ -130,6 +138,9 @@ public class BinaryWebSocketHandlerMP extends BinaryWebSocketHandler {
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
         sessionStates.remove(session.getId());
+        if (leadImageStore != null) {
+            leadImageStore.remove(session.getId());
+        }
     }
 
     private static class SessionState {
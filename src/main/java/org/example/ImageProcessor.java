@@ -22,10 +22,30 @@ public class ImageProcessor {
         public int[] data;
     }
 
+    // Wynik wykrywania siatki (czerwonych linii)
+    static class GridDetection {
+        int smallPx;
+        int redThreshold;
+        List<Integer> horizontalRedLines;
+        List<Integer> verticalRedLines;
+    }
+
+    static final int GREEN_BLUE_THRESHOLD = 100; // Maksymalna wartość dla kanałów G i B
+    static final int REQUIRED_RED_PERCENTAGE = 70; // Wymagany % czerwonych pikseli
+    static final int LEFT_MARGIN_THRESHOLD = 10;
+    static final double WHITE_ROW_RATIO = 0.01;
+
+    private final LayoutTemplateCache layoutTemplateCache;
+
+    public ImageProcessor(LayoutTemplateCache layoutTemplateCache) {
+        this.layoutTemplateCache = layoutTemplateCache;
+    }
+
     /**
      * Główna metoda przetwarzająca:
      *  - Wczytuje bajty PNG -> BufferedImage
-     *  - Wykryqwa ilość px na kratkę małą
+     *  - Szuka szablonu siatki w cache (po odcisku strony) i szybko go weryfikuje
+     *  - Wykryqwa ilość px na kratkę małą (jeśli szablon nie pasuje – wtedy aktualizuje szablon)
      *  - Usuwanie samotnych pikseli
      *  - Odcinanie lewego marginesu
      *  - Szukanie 7 bloków białych w poziomie, żeby pociąć na 6 linii
@@ -41,12 +61,112 @@ public class ImageProcessor {
         int origWidth = input.getWidth();
         int origHeight = input.getHeight();
 
+        // 0. Szablon siatki dla znanego formatu strony
+        String fingerprint = layoutTemplateCache.fingerprint(input);
+        LayoutTemplateCache.LayoutTemplate template = layoutTemplateCache.get(fingerprint);
+
         // 1. Wykrywanie ilości px na kratkę małą (1/5 px na kratkę dużą)
+        // Przy trafieniu w szablon detectGrid jest pomijane, więc received-lines.png nie jest nadpisywany
+        // (plik na dysku pochodzi z ostatniego żądania, w którym siatkę wykrywano od nowa)
+        int smallPx;
+        if (template != null && isGridValid(input, template)) {
+            smallPx = template.smallPx;
+            System.out.println("Użyto szablonu siatki: " + fingerprint);
+        } else {
+            GridDetection grid = detectGrid(input);
+            smallPx = grid.smallPx;
+            // Zapis (aktualizacja) szablonu – tylko gdy wykryto linie siatki w obu kierunkach
+            if (!grid.horizontalRedLines.isEmpty() && !grid.verticalRedLines.isEmpty()) {
+                LayoutTemplateCache.LayoutTemplate updated = new LayoutTemplateCache.LayoutTemplate();
+                updated.smallPx = smallPx;
+                updated.redThreshold = grid.redThreshold;
+                updated.gridRow = grid.horizontalRedLines.get(grid.horizontalRedLines.size() / 2);
+                updated.gridCol = grid.verticalRedLines.get(grid.verticalRedLines.size() / 2);
+                layoutTemplateCache.put(fingerprint, updated);
+            }
+        }
+        System.out.println("Px na kratkę: " + (double)smallPx/1000000.0);
+
+        // 2. Binaryzacja + usuwanie samotnych pikseli
+        boolean[][] matrix = new boolean[origHeight][origWidth];
+        for (int y = 0; y < origHeight; y++) {
+            for (int x = 0; x < origWidth; x++) {
+                matrix[y][x] = binarize(input.getRGB(x, y));
+            }
+        }
+        matrix = removeLonelyPixels(matrix);
+
+        // 3. Usuwanie lewego pustego marginesu (zawsze wykrywany – kończy się na pierwszej niepustej kolumnie)
+        int leftMargin = findLeftMargin(matrix);
+        if (leftMargin > 0) {
+            matrix = cutLeft(matrix, leftMargin);
+        }
+
+        int width = matrix[0].length;
+        int height = matrix.length;
+
+        // 4. Szukamy 7 linii poziomych (zawsze – pozycja pasów zmienia się między skanami)
+        List<Integer> hLines = null;
+        boolean fallback = false;
+        try {
+            hLines = find7HorizontalLines(matrix);
+            if (hLines.size() != 7) {
+                throw new RuntimeException("Nie znaleziono 7 linii (znaleziono=" + hLines.size() + ")");
+            }
+        } catch (Exception e) {
+            System.err.println("Nieudana detekcja 7 linii poziomych: " + e.getMessage());
+            fallback = true;
+        }
+
+        // 5. Pionowa linia w samym środku
+        int vLine = width / 2;
+
+        // 6. Tniemy na 8×2
+        List<CompressedBitmap> resultList = cutIntoSegments(matrix, computeLeadRegions(height, width, hLines, fallback), smallPx);
+
+        // 7. Rysowanie i zapis debug_output.png
+        BufferedImage debugImg = copyBufferedImage(input);
+        debugImg = debugImg.getSubimage(leftMargin, 0, width, height);
+        drawDebugLines(debugImg, hLines, vLine, fallback);
+        ImageIO.write(debugImg, "png", new File("received-cut.png"));
+
+        return resultList;
+    }
+
+    private GridDetection detectGrid(BufferedImage input) throws IOException {
+        GridDetection grid = detectGridLines(input.getWidth(), input.getHeight(),
+                (y, t) -> isRedRow(input, y, t),
+                (x, t) -> isRedColumn(input, x, t));
+
+        // Zaznacz linie na obrazie i zapisz
+        BufferedImage linesImage = copyBufferedImage(input);
+        Graphics2D g = linesImage.createGraphics();
+        g.setColor(Color.GREEN);
+        g.setStroke(new BasicStroke(2f));
+
+        for (Integer y : grid.horizontalRedLines) {
+            g.drawLine(0, y, linesImage.getWidth() - 1, y);
+        }
+        for (Integer x : grid.verticalRedLines) {
+            g.drawLine(x, 0, x, linesImage.getHeight() - 1);
+        }
+        g.dispose();
+        ImageIO.write(linesImage, "png", new File("received-lines.png"));
+
+        return grid;
+    }
+
+    // Test, czy wiersz/kolumna o danym indeksie jest czerwoną linią siatki przy danym progu
+    interface RedLineTest {
+        boolean isRedLine(int index, int redThreshold);
+    }
+
+    // Adaptacyjne wykrywanie linii siatki – wspólne dla trybu pełnego i pasmowego
+    GridDetection detectGridLines(int origWidth, int origHeight, RedLineTest rowTest, RedLineTest columnTest) {
         List<Integer> horizontalRedLines = new ArrayList<>();
         List<Integer> verticalRedLines = new ArrayList<>();
         int redThreshold = 200;   // Początkowy próg dla kanału R
-        int greenBlueThreshold = 100; // Maksymalna wartość dla kanałów G i B
-        int requiredPercentage = 70; // Wymagany % czerwonych pikseli
+        int usedThreshold;
         int attempts = 0;
         boolean vlinesDetected = false;
         boolean hlinesDetected = false;
@@ -54,33 +174,18 @@ public class ImageProcessor {
         do {
             horizontalRedLines.clear();
             verticalRedLines.clear();
+            usedThreshold = redThreshold;
 
             // Wykrywanie poziomych linii
             for (int y = 0; y < origHeight; y++) {
-                int redPixels = 0;
-                for (int x = 0; x < origWidth; x++) {
-                    Color c = new Color(input.getRGB(x, y));
-                    if (c.getRed() >= redThreshold && c.getGreen() <= greenBlueThreshold && c.getBlue() <= greenBlueThreshold) {
-                        redPixels++;
-                    }
-                }
-                double percentage = (redPixels * 100.0) / origWidth;
-                if (percentage >= requiredPercentage) {
+                if (rowTest.isRedLine(y, redThreshold)) {
                     horizontalRedLines.add(y);
                 }
             }
 
             // Wykrywanie pionowych linii
             for (int x = 0; x < origWidth; x++) {
-                int redPixels = 0;
-                for (int y = 0; y < origHeight; y++) {
-                    Color c = new Color(input.getRGB(x, y));
-                    if (c.getRed() >= redThreshold && c.getGreen() <= greenBlueThreshold && c.getBlue() <= greenBlueThreshold) {
-                        redPixels++;
-                    }
-                }
-                double percentage = (redPixels * 100.0) / origHeight;
-                if (percentage >= requiredPercentage) {
+                if (columnTest.isRedLine(x, redThreshold)) {
                     verticalRedLines.add(x);
                 }
             }
@@ -105,130 +210,123 @@ public class ImageProcessor {
             attempts++;
         } while ((!vlinesDetected || !hlinesDetected) && attempts < 20 && !vlinesDetected);
 
-        // Zaznacz linie na obrazie i zapisz
-        BufferedImage linesImage = copyBufferedImage(input);
-        Graphics2D g = linesImage.createGraphics();
-        g.setColor(Color.GREEN);
-        g.setStroke(new BasicStroke(2f));
-
-        for (Integer y : horizontalRedLines) {
-            g.drawLine(0, y, linesImage.getWidth() - 1, y);
-        }
-        for (Integer x : verticalRedLines) {
-            g.drawLine(x, 0, x, linesImage.getHeight() - 1);
-        }
-        g.dispose();
-        ImageIO.write(linesImage, "png", new File("received-lines.png"));
-
         int minHorizontalGap = calculateMinGap(horizontalRedLines);
         int minVerticalGap = calculateMinGap(verticalRedLines);
         if (minHorizontalGap <= 0) minHorizontalGap = 1000;
         if (minVerticalGap <= 0) minVerticalGap = 1000;
         int bigPx = Math.min(minHorizontalGap, minVerticalGap);
-        int smallPx = 1000000 * bigPx / 5; // razy 1M, żeby wysłać jako int
-        System.out.println("Px na kratkę: " + (double)smallPx/1000000.0);
 
-        // 2. Binaryzacja + usuwanie samotnych pikseli
-        boolean[][] matrix = new boolean[origHeight][origWidth];
-        for (int y = 0; y < origHeight; y++) {
-            for (int x = 0; x < origWidth; x++) {
-                Color c = new Color(input.getRGB(x, y), true);
-                int r = c.getRed();
-                int green = c.getGreen();
-                int b = c.getBlue();
-
-                // Binaryzacja
-                boolean val = (r < 200 && green < 200);
-                if (r < 150 && green < 150 && b < 120) {
-                    val = false;
-                }
-                matrix[y][x] = val;
-            }
+        GridDetection grid = new GridDetection();
+        grid.smallPx = 1000000 * bigPx / 5; // razy 1M, żeby wysłać jako int
+        grid.redThreshold = usedThreshold;
+        grid.horizontalRedLines = horizontalRedLines;
+        grid.verticalRedLines = verticalRedLines;
+        return grid;
+    }
+
+    private boolean isRedPixel(int rgb, int redThreshold) {
+        int r = (rgb >> 16) & 0xFF, g = (rgb >> 8) & 0xFF, b = rgb & 0xFF;
+        return r >= redThreshold && g <= GREEN_BLUE_THRESHOLD && b <= GREEN_BLUE_THRESHOLD;
+    }
+
+    private boolean isRedRow(BufferedImage input, int y, int redThreshold) {
+        int w = input.getWidth();
+        int redPixels = 0;
+        for (int x = 0; x < w; x++) {
+            if (isRedPixel(input.getRGB(x, y), redThreshold)) redPixels++;
         }
-        matrix = removeLonelyPixels(matrix);
+        return (redPixels * 100.0) / w >= REQUIRED_RED_PERCENTAGE;
+    }
 
-        // 3. Usuwanie lewego pustego marginesu
-        int leftMargin = findLeftMargin(matrix);
-        if (leftMargin > 0) {
-            matrix = cutLeft(matrix, leftMargin);
+    private boolean isRedColumn(BufferedImage input, int x, int redThreshold) {
+        int h = input.getHeight();
+        int redPixels = 0;
+        for (int y = 0; y < h; y++) {
+            if (isRedPixel(input.getRGB(x, y), redThreshold)) redPixels++;
         }
+        return (redPixels * 100.0) / h >= REQUIRED_RED_PERCENTAGE;
+    }
 
-        int width = matrix[0].length;
-        int height = matrix.length;
+    // Szybka weryfikacja siatki: zapamiętane linie siatki nadal muszą być czerwone,
+    // w odległości jednej dużej kratki (bigPx) musi leżeć kolejna czerwona linia,
+    // a pomiędzy nimi żadna (inaczej odstęp siatki jest inny niż zapamiętany)
+    private boolean isGridValid(BufferedImage input, LayoutTemplateCache.LayoutTemplate template) {
+        int h = input.getHeight(), w = input.getWidth();
+        int row = template.gridRow, col = template.gridCol, t = template.redThreshold;
+        int bigPx = (int) ((long) template.smallPx * 5 / 1000000);
+        if (bigPx < 2) return false;
+        if (row < 0 || row >= h || col < 0 || col >= w) return false;
+        if (!isRedRow(input, row, t) || !isRedColumn(input, col, t)) return false;
+
+        return hasGridSpacing(row, h, bigPx, y -> isRedRow(input, y, t))
+                && hasGridSpacing(col, w, bigPx, x -> isRedColumn(input, x, t));
+    }
 
-        // 4. Szukamy 7 linii poziomych
-        List<Integer> hLines = null;
-        boolean fallback = false;
-        try {
-            hLines = find7HorizontalLines(matrix);
-            if (hLines.size() != 7) {
-                throw new RuntimeException("Nie znaleziono 7 linii (znaleziono=" + hLines.size() + ")");
+    private boolean hasGridSpacing(int line, int size, int bigPx, java.util.function.IntPredicate isRed) {
+        for (int dir : new int[]{1, -1}) {
+            int next = line + dir * bigPx;
+            if (next >= 0 && next < size && isRed.test(next)) {
+                for (int d = 1; d < bigPx; d++) {
+                    if (isRed.test(line + dir * d)) return false;
+                }
+                return true;
             }
-        } catch (Exception e) {
-            System.err.println("Nieudana detekcja 7 linii poziomych: " + e.getMessage());
-            fallback = true;
         }
+        return false;
+    }
 
-        // 5. Pionowa linia w samym środku
-        int vLine = width / 2;
-
-        // 6. Tniemy na 8×2
-        List<CompressedBitmap> resultList;
-        if (!fallback) {
-            resultList = cutIntoSegments(matrix, hLines, vLine, smallPx);
-        } else {
-            resultList = cutEqually(matrix, smallPx);
+    private int countBlackInColumn(boolean[][] matrix, int x) {
+        int blackCount = 0;
+        for (boolean[] row : matrix) {
+            if (row[x]) blackCount++;
         }
+        return blackCount;
+    }
 
-        // 7. Rysowanie i zapis debug_output.png
-        BufferedImage debugImg = copyBufferedImage(input);
-        debugImg = debugImg.getSubimage(leftMargin, 0, width, height);
-        drawDebugLines(debugImg, hLines, vLine, fallback);
-        ImageIO.write(debugImg, "png", new File("received-cut.png"));
-
-        return resultList;
+    // Binaryzacja pojedynczego piksela (true = piksel wykresu)
+    static boolean binarize(int rgb) {
+        int r = (rgb >> 16) & 0xFF;
+        int green = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        boolean val = (r < 200 && green < 200);
+        if (r < 150 && green < 150 && b < 120) {
+            val = false;
+        }
+        return val;
     }
 
     private boolean[][] removeLonelyPixels(boolean[][] matrix) {
         int h = matrix.length, w = matrix[0].length;
         boolean[][] result = new boolean[h][w];
-        for (int i = 0; i < h; i++) {
-            System.arraycopy(matrix[i], 0, result[i], 0, w);
-        }
+        System.arraycopy(matrix[0], 0, result[0], 0, w);
+        System.arraycopy(matrix[h - 1], 0, result[h - 1], 0, w);
 
         for (int y = 1; y < h - 1; y++) {
-            for (int x = 1; x < w - 1; x++) {
-                if (matrix[y][x]) {
-                    boolean lonely = true;
-                    for (int dy = -1; dy <= 1; dy++) {
-                        for (int dx = -1; dx <= 1; dx++) {
-                            if (dy == 0 && dx == 0) continue;
-                            if (matrix[y + dy][x + dx]) {
-                                lonely = false;
-                                break;
-                            }
-                        }
-                        if (!lonely) break;
-                    }
-                    if (lonely) {
-                        result[y][x] = false;
-                    }
+            removeLonelyPixels(matrix[y - 1], matrix[y], matrix[y + 1], result[y]);
+        }
+        return result;
+    }
+
+    // Usuwanie samotnych pikseli w jednym wierszu (wiersz nie może być pierwszym ani ostatnim obrazu)
+    static void removeLonelyPixels(boolean[] above, boolean[] row, boolean[] below, boolean[] result) {
+        int w = row.length;
+        System.arraycopy(row, 0, result, 0, w);
+        for (int x = 1; x < w - 1; x++) {
+            if (row[x]) {
+                boolean lonely = !(above[x - 1] || above[x] || above[x + 1]
+                        || row[x - 1] || row[x + 1]
+                        || below[x - 1] || below[x] || below[x + 1]);
+                if (lonely) {
+                    result[x] = false;
                 }
             }
         }
-        return result;
     }
 
     private int findLeftMargin(boolean[][] matrix) {
-        int h = matrix.length;
         int w = matrix[0].length;
-        int threshold = 10;
         for (int x = 0; x < w; x++) {
-            int blackCount = 0;
-            for (int y = 0; y < h; y++) {
-                if (matrix[y][x]) blackCount++;
-            }
-            if (blackCount >= threshold) {
+            if (countBlackInColumn(matrix, x) >= LEFT_MARGIN_THRESHOLD) {
                 return x;
             }
         }
@@ -251,7 +349,21 @@ public class ImageProcessor {
     private List<Integer> find7HorizontalLines(boolean[][] matrix) {
         int h = matrix.length;
         int w = matrix[0].length;
-        double rowThreshold = w * 0.01;
+        int[] blackCounts = new int[h];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                if (matrix[y][x]) {
+                    blackCounts[y]++;
+                }
+            }
+        }
+        return find7HorizontalLines(blackCounts, w);
+    }
+
+    // Wariant na liczbach czarnych pikseli w wierszach (rowBlackCounts) dla obrazu o szerokości w
+    List<Integer> find7HorizontalLines(int[] rowBlackCounts, int w) {
+        int h = rowBlackCounts.length;
+        double rowThreshold = w * WHITE_ROW_RATIO;
         double minimumPer = 0.01;
         List<WhiteBlock> blocks = null;
 
@@ -260,13 +372,7 @@ public class ImageProcessor {
             double minBlockHeight = minimumPer * h;
             boolean[] isWhite = new boolean[h];
             for (int y = 0; y < h; y++) {
-                int blackCount = 0;
-                for (int x = 0; x < w; x++) {
-                    if (matrix[y][x]) {
-                        blackCount++;
-                    }
-                }
-                isWhite[y] = (blackCount < rowThreshold);
+                isWhite[y] = (rowBlackCounts[y] < rowThreshold);
             }
 
             blocks = new ArrayList<>();
@@ -327,133 +433,95 @@ public class ImageProcessor {
         WhiteBlock(int s, int e) { start = s; end = e; }
     }
 
-    // Cięcie 8x2
-    private List<CompressedBitmap> cutIntoSegments(boolean[][] matrix, List<Integer> hLines, int vLine, int smallPx) {
-        int h = matrix.length, w = matrix[0].length;
-        hLines.sort(Integer::compareTo);
-        List<Integer> finalY = new ArrayList<>();
-        finalY.add(0);
-        finalY.addAll(hLines);
-        finalY.add(h);
-
-        int halfW = w / 2;
-        List<boolean[][]> leftSubMatrices = new ArrayList<>();
-        List<boolean[][]> rightSubMatrices = new ArrayList<>();
-
-        for (int i = 1; i < finalY.size() - 2; i++) {
-            int y1 = finalY.get(i);
-            int y2 = finalY.get(i + 1);
-            int segH = y2 - y1;
-
-            boolean[][] leftSub = new boolean[segH][halfW];
-            boolean[][] rightSub = new boolean[segH][w - halfW];
+    // Prostokąt jednego odprowadzenia (po przycięciu) we współrzędnych obrazu bez lewego marginesu
+    static class LeadRegion {
+        int y, x, height, width;
+    }
 
-            for (int yy = 0; yy < segH; yy++) {
-                System.arraycopy(matrix[y1 + yy], 0, leftSub[yy], 0, halfW);
-                System.arraycopy(matrix[y1 + yy], halfW, rightSub[yy], 0, w - halfW);
+    /**
+     * Geometria cięcia 8×2:
+     *  - Wiersze 1..6 między liniami poziomymi (przy fallbacku – równe 1/8 wysokości)
+     *  - Kolumny: lewa (I, II, III, aVR, aVL, aVF), potem prawa (V1, V2, V3, V4, V5, V6)
+     *  - Przycięcie do minimalnych wymiarów (środek segmentu) i usunięcie 5% z lewej i prawej
+     */
+    List<LeadRegion> computeLeadRegions(int h, int w, List<Integer> hLines, boolean fallback) {
+        List<int[]> rows = new ArrayList<>(); // {y1, segH}
+        if (!fallback) {
+            List<Integer> finalY = new ArrayList<>();
+            finalY.add(0);
+            List<Integer> sorted = new ArrayList<>(hLines);
+            sorted.sort(Integer::compareTo);
+            finalY.addAll(sorted);
+            finalY.add(h);
+            for (int i = 1; i < finalY.size() - 2; i++) {
+                int y1 = finalY.get(i);
+                rows.add(new int[]{y1, finalY.get(i + 1) - y1});
+            }
+        } else {
+            int rowH = h / 8;
+            for (int row = 1; row < 7; row++) {
+                rows.add(new int[]{row * rowH, rowH});
             }
-            leftSubMatrices.add(leftSub);
-            rightSubMatrices.add(rightSub);
         }
 
-        // Najpierw lewa kolumna (I, II, III, aVR, aVL, aVF), potem prawa (V1, V2, V3, V4, V5, V6)
-        List<boolean[][]> subMatrices = new ArrayList<>();
-        subMatrices.addAll(leftSubMatrices);
-        subMatrices.addAll(rightSubMatrices);
-
-        // Wyznaczamy minimalne wymiary spośród 12 głównych wykresów EKG
-        int minH = subMatrices.stream().mapToInt(m -> m.length).min().orElse(0);
-        int minW = subMatrices.stream().mapToInt(m -> m[0].length).min().orElse(0);
-
-        // Przycinamy każdy segment do (minH x minW), a następnie usuwamy 5% z lewej i prawej
-        List<CompressedBitmap> list = new ArrayList<>();
-        for (boolean[][] sub : subMatrices) {
-            boolean[][] trimmed = trimToSize(sub, minH, minW);
-            trimmed = trimLeftRight(trimmed, 0.05); // usuń 5% z obu stron
-            int[] compressed = compressBooleanMatrix(trimmed);
-            CompressedBitmap cb = new CompressedBitmap();
-            cb.smallPx = smallPx;
-            cb.width = trimmed[0].length;
-            cb.height = trimmed.length;
-            cb.n = compressed.length;
-            cb.data = compressed;
-            list.add(cb);
+        int halfW = w / 2;
+        int minH = rows.stream().mapToInt(r -> r[1]).min().orElse(0);
+        int minW = Math.min(halfW, w - halfW);
+        int cut = (int) (minW * 0.05); // usuń 5% z obu stron
+        int newW = minW - 2 * cut;
+        if (newW <= 0) {
+            cut = 0;
+            newW = minW;
         }
-        return list;
-    }
 
-    private List<CompressedBitmap> cutEqually(boolean[][] matrix, int smallPx) {
-        int h = matrix.length, w = matrix[0].length;
-        int rowH = h / 8;
-        int colW = w / 2;
-        List<boolean[][]> leftSubMatrices = new ArrayList<>();
-        List<boolean[][]> rightSubMatrices = new ArrayList<>();
-
-        for (int row = 1; row < 7; row++) {
-            int y1 = row * rowH;
-            int y2 = (row + 1) * rowH;
-            int segH = y2 - y1;
-
-            boolean[][] leftSub = new boolean[segH][colW];
-            boolean[][] rightSub = new boolean[segH][w - colW];
-
-            for (int yy = 0; yy < segH; yy++) {
-                System.arraycopy(matrix[y1 + yy], 0, leftSub[yy], 0, colW);
-                System.arraycopy(matrix[y1 + yy], colW, rightSub[yy], 0, w - colW);
+        List<LeadRegion> regions = new ArrayList<>();
+        for (int col = 0; col < 2; col++) {
+            int colX = col == 0 ? 0 : halfW;
+            int colW = col == 0 ? halfW : w - halfW;
+            for (int[] row : rows) {
+                LeadRegion region = new LeadRegion();
+                region.y = row[0] + Math.max(0, (row[1] - minH) / 2);
+                region.x = colX + Math.max(0, (colW - minW) / 2) + cut;
+                region.height = minH;
+                region.width = newW;
+                regions.add(region);
             }
-            leftSubMatrices.add(leftSub);
-            rightSubMatrices.add(rightSub);
         }
+        return regions;
+    }
 
-        List<boolean[][]> subMatrices = new ArrayList<>();
-        subMatrices.addAll(leftSubMatrices);
-        subMatrices.addAll(rightSubMatrices);
-
-        int minH = subMatrices.stream().mapToInt(m -> m.length).min().orElse(0);
-        int minW = subMatrices.stream().mapToInt(m -> m[0].length).min().orElse(0);
-
+    // Cięcie 8x2 – pakowanie bitów każdego odprowadzenia bezpośrednio z macierzy
+    private List<CompressedBitmap> cutIntoSegments(boolean[][] matrix, List<LeadRegion> regions, int smallPx) {
         List<CompressedBitmap> list = new ArrayList<>();
-        for (boolean[][] sub : subMatrices) {
-            boolean[][] trimmed = trimToSize(sub, minH, minW);
-            trimmed = trimLeftRight(trimmed, 0.05); // usuń 5% z lewej i prawej
-            int[] compressed = compressBooleanMatrix(trimmed);
-            CompressedBitmap cb = new CompressedBitmap();
-            cb.smallPx = smallPx;
-            cb.width = trimmed[0].length;
-            cb.height = trimmed.length;
-            cb.n = compressed.length;
-            cb.data = compressed;
+        for (LeadRegion region : regions) {
+            CompressedBitmap cb = newCompressedBitmap(region, smallPx);
+            for (int yy = 0; yy < region.height; yy++) {
+                packRow(matrix[region.y + yy], 0, region, yy, cb.data);
+            }
             list.add(cb);
         }
         return list;
     }
 
-    private int[] compressBooleanMatrix(boolean[][] subMatrix) {
-        int hh=subMatrix.length;
-        int ww=subMatrix[0].length;
-        int total=hh*ww;
-        int nInts=(total+31)/32;
-        int[] result=new int[nInts];
-
-        int bitIndex=0, intIndex=0, current=0;
-        for(int y=0;y<hh;y++){
-            for(int x=0;x<ww;x++){
-                if(subMatrix[y][x]){
-                    current |= (1 << bitIndex);
-                }
-                bitIndex++;
-                if(bitIndex==32){
-                    result[intIndex]=current;
-                    intIndex++;
-                    bitIndex=0;
-                    current=0;
-                }
+    static CompressedBitmap newCompressedBitmap(LeadRegion region, int smallPx) {
+        CompressedBitmap cb = new CompressedBitmap();
+        cb.smallPx = smallPx;
+        cb.width = region.width;
+        cb.height = region.height;
+        cb.data = new int[(region.width * region.height + 31) / 32];
+        cb.n = cb.data.length;
+        return cb;
+    }
+
+    // Zapis jednego wiersza odprowadzenia do strumienia bitów (LSB pierwszy); offset – przesunięcie kolumn wiersza
+    static void packRow(boolean[] row, int offset, LeadRegion region, int rowInRegion, int[] data) {
+        int bitIndex = rowInRegion * region.width;
+        int start = offset + region.x;
+        for (int x = 0; x < region.width; x++, bitIndex++) {
+            if (row[start + x]) {
+                data[bitIndex >>> 5] |= 1 << (bitIndex & 31);
             }
         }
-        if(bitIndex>0){
-            result[intIndex]=current;
-        }
-        return result;
     }
 
     private void drawDebugLines(BufferedImage img,
@@ -494,33 +562,7 @@ public class ImageProcessor {
         return copy;
     }
 
-    private boolean[][] trimToSize(boolean[][] matrix, int targetH, int targetW) {
-        int h = matrix.length;
-        int w = matrix[0].length;
-        boolean[][] result = new boolean[targetH][targetW];
-        int startY = Math.max(0, (h - targetH) / 2);
-        int startX = Math.max(0, (w - targetW) / 2);
-        for (int y = 0; y < targetH; y++) {
-            for (int x = 0; x < targetW; x++) {
-                result[y][x] = matrix[startY + y][startX + x];
-            }
-        }
-        return result;
-    }
-
-    private boolean[][] trimLeftRight(boolean[][] matrix, double ratio) {
-        int w = matrix[0].length;
-        int cut = (int) (w * ratio);
-        int newW = w - 2 * cut;
-        if (newW <= 0) return matrix;
-        boolean[][] result = new boolean[matrix.length][newW];
-        for (int y = 0; y < matrix.length; y++) {
-            System.arraycopy(matrix[y], cut, result[y], 0, newW);
-        }
-        return result;
-    }
-
-    private int calculateMinGap(List<Integer> lines) {
+    int calculateMinGap(List<Integer> lines) {
         if (lines.size() < 2) return 0;
         List<Integer> sorted = new ArrayList<>(lines);
         Collections.sort(sorted);
@@ -0,0 +1,95 @@
+package org.example;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Component
+public class LayoutTemplateCache {
+
+    // Szablon siatki strony dla danego formatu (aparatu EKG)
+    public static class LayoutTemplate {
+        public int smallPx;
+        public int redThreshold;
+        public int gridRow;   // wiersz jednej z wykrytych poziomych linii siatki (do weryfikacji)
+        public int gridCol;   // kolumna jednej z wykrytych pionowych linii siatki (do weryfikacji)
+    }
+
+    private static final int SAMPLE_STEP = 4;       // co który piksel linii próbkujemy
+    private static final int SIGNATURE_LINES = 3;   // ile pierwszych linii siatki trafia do sygnatury
+    private static final int POSITION_QUANTUM = 4;  // kwantyzacja położenia pierwszej linii (px)
+    private static final int LINE_RED_PERCENTAGE = 50;
+    private static final int LINE_RED_MIN = 150;
+
+    private final Map<String, LayoutTemplate> templates;
+
+    public LayoutTemplateCache(@Value("${layout.cache.max-entries:32}") int maxEntries) {
+        // LRU – najdawniej używany szablon jest usuwany po przekroczeniu limitu
+        this.templates = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LayoutTemplate> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * Odcisk strony:
+     *  - Wymiary obrazu
+     *  - Sygnatura siatki: położenie pierwszej wyraźnej poziomej i pionowej linii siatki
+     *    (skwantyzowane do POSITION_QUANTUM px) oraz odstępy do kolejnych SIGNATURE_LINES linii
+     *  - Przeszukiwana jest tylko górna/lewa ćwiartka obrazu, co SAMPLE_STEP-ty piksel linii
+     */
+    public String fingerprint(BufferedImage input) {
+        int w = input.getWidth();
+        int h = input.getHeight();
+        return w + "x" + h
+                + ":h" + lineSignature(input, h / 4, w, true)
+                + ":v" + lineSignature(input, w / 4, h, false);
+    }
+
+    // Sygnatura pierwszych linii siatki: "pozycja/kwant,odstęp,odstęp" (lub "-" gdy brak linii)
+    private String lineSignature(BufferedImage input, int searchLimit, int lineLength, boolean rows) {
+        List<Integer> lines = new ArrayList<>(SIGNATURE_LINES);
+        for (int i = 0; i < searchLimit && lines.size() < SIGNATURE_LINES; i++) {
+            int red = 0, total = 0;
+            for (int j = 0; j < lineLength; j += SAMPLE_STEP) {
+                int rgb = rows ? input.getRGB(j, i) : input.getRGB(i, j);
+                int r = (rgb >> 16) & 0xFF, g = (rgb >> 8) & 0xFF, b = rgb & 0xFF;
+                if (r >= LINE_RED_MIN && g <= ImageProcessor.GREEN_BLUE_THRESHOLD && b <= ImageProcessor.GREEN_BLUE_THRESHOLD) {
+                    red++;
+                }
+                total++;
+            }
+            // Grube linie (kilka sąsiednich wierszy) liczymy jako jedną
+            boolean isLine = red * 100 >= total * LINE_RED_PERCENTAGE;
+            if (isLine && (lines.isEmpty() || i - lines.get(lines.size() - 1) > 1)) {
+                lines.add(i);
+            } else if (isLine) {
+                lines.set(lines.size() - 1, i);
+            }
+        }
+        if (lines.isEmpty()) {
+            return "-";
+        }
+        StringBuilder sb = new StringBuilder().append(lines.get(0) / POSITION_QUANTUM);
+        for (int k = 1; k < lines.size(); k++) {
+            sb.append(',').append(lines.get(k) - lines.get(k - 1));
+        }
+        return sb.toString();
+    }
+
+    public LayoutTemplate get(String fingerprint) {
+        return templates.get(fingerprint);
+    }
+
+    public void put(String fingerprint, LayoutTemplate template) {
+        templates.put(fingerprint, template);
+    }
+}
@@ -0,0 +1,35 @@
+package org.example;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+
+@RestController
+@ConditionalOnProperty(name = "leads.http-download.enabled", havingValue = "true")
+public class LeadImageController {
+
+    private final LeadImageStore leadImageStore;
+    private final PngEncoder pngEncoder;
+
+    public LeadImageController(LeadImageStore leadImageStore, PngEncoder pngEncoder) {
+        this.leadImageStore = leadImageStore;
+        this.pngEncoder = pngEncoder;
+    }
+
+    // Pobranie odprowadzenia ostatnio przetworzonego w danej sesji jako PNG, np. GET /leads/{sessionId}/aVR.png
+    @GetMapping("/leads/{sessionId}/{lead}.png")
+    public ResponseEntity<byte[]> getLead(@PathVariable String sessionId, @PathVariable String lead) throws IOException {
+        ImageProcessor.CompressedBitmap cb = leadImageStore.get(sessionId, lead);
+        if (cb == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.IMAGE_PNG)
+                .body(pngEncoder.encode(cb));
+    }
+}
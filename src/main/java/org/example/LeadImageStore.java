@@ -0,0 +1,39 @@
+package org.example;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Tworzony tylko przy włączonym pobieraniu przez HTTP – inaczej wyniki nie są przechowywane
+@Component
+@ConditionalOnProperty(name = "leads.http-download.enabled", havingValue = "true")
+public class LeadImageStore {
+
+    // Kolejność odprowadzeń zgodna z wynikiem ImageProcessor.processImage
+    public static final List<String> LEAD_NAMES = List.of(
+            "I", "II", "III", "aVR", "aVL", "aVF",
+            "V1", "V2", "V3", "V4", "V5", "V6"
+    );
+
+    // Wynik ostatniego przetwarzania dla każdej sesji WebSocket (cała lista podmieniana naraz)
+    private final ConcurrentHashMap<String, List<ImageProcessor.CompressedBitmap>> results = new ConcurrentHashMap<>();
+
+    public void update(String sessionId, List<ImageProcessor.CompressedBitmap> bitmaps) {
+        results.put(sessionId, List.copyOf(bitmaps));
+    }
+
+    public ImageProcessor.CompressedBitmap get(String sessionId, String lead) {
+        List<ImageProcessor.CompressedBitmap> bitmaps = results.get(sessionId);
+        int index = LEAD_NAMES.indexOf(lead);
+        if (bitmaps == null || index < 0 || index >= bitmaps.size()) {
+            return null;
+        }
+        return bitmaps.get(index);
+    }
+
+    public void remove(String sessionId) {
+        results.remove(sessionId);
+    }
+}
@@ -0,0 +1,115 @@
+package org.example;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+@Component
+public class PngEncoder {
+
+    private static final byte[] PNG_SIGNATURE = {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+    };
+
+    private final int deflateLevel;
+
+    public PngEncoder(@Value("${png.deflate-level:6}") int deflateLevel) {
+        if (deflateLevel < Deflater.NO_COMPRESSION || deflateLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Niepoprawny poziom kompresji PNG: " + deflateLevel);
+        }
+        this.deflateLevel = deflateLevel;
+    }
+
+    /**
+     * Koduje CompressedBitmap bezpośrednio do 1-bitowego PNG (skala szarości):
+     *  - Bity z cb.data (LSB pierwszy, 1 = czarny) -> linie skanowania (MSB pierwszy, 0 = czarny)
+     *  - Każda linia z filtrem None, całość w jednym chunku IDAT
+     *  - Bez pośredniego BufferedImage i bez ImageIO
+     */
+    public void write(ImageProcessor.CompressedBitmap cb, OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.write(PNG_SIGNATURE);
+
+        ByteArrayOutputStream ihdr = new ByteArrayOutputStream(13);
+        DataOutputStream ihdrData = new DataOutputStream(ihdr);
+        ihdrData.writeInt(cb.width);
+        ihdrData.writeInt(cb.height);
+        ihdrData.writeByte(1); // głębia bitowa
+        ihdrData.writeByte(0); // skala szarości
+        ihdrData.writeByte(0); // kompresja deflate
+        ihdrData.writeByte(0); // filtrowanie adaptacyjne
+        ihdrData.writeByte(0); // bez przeplotu
+        writeChunk(dos, "IHDR", ihdr.toByteArray());
+
+        writeChunk(dos, "IDAT", deflateScanlines(cb));
+        writeChunk(dos, "IEND", new byte[0]);
+        dos.flush();
+    }
+
+    public byte[] encode(ImageProcessor.CompressedBitmap cb) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(cb.data.length + 64);
+        write(cb, out);
+        return out.toByteArray();
+    }
+
+    public void write(ImageProcessor.CompressedBitmap cb, File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            write(cb, out);
+        }
+    }
+
+    private byte[] deflateScanlines(ImageProcessor.CompressedBitmap cb) throws IOException {
+        int rowBytes = (cb.width + 7) / 8;
+        // Maska bitów dopełnienia w ostatnim bajcie linii (ustawiamy je na biało)
+        int padBits = rowBytes * 8 - cb.width;
+        int padMask = (1 << padBits) - 1;
+
+        byte[] scanline = new byte[1 + rowBytes]; // scanline[0] = filtr None
+        ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(deflateLevel);
+        try (DeflaterOutputStream dos = new DeflaterOutputStream(idat, deflater, 8192)) {
+            long bitIndex = 0;
+            for (int y = 0; y < cb.height; y++) {
+                for (int i = 0; i < rowBytes; i++) {
+                    int bits = readByte(cb.data, bitIndex + (long) i * 8);
+                    // Odwrócenie kolejności bitów (LSB -> MSB) i kolorów (1 = czarny -> 0 = czarny)
+                    scanline[1 + i] = (byte) ~(Integer.reverse(bits) >>> 24);
+                }
+                if (padBits > 0) {
+                    scanline[rowBytes] |= (byte) padMask;
+                }
+                dos.write(scanline);
+                bitIndex += cb.width;
+            }
+        } finally {
+            deflater.end();
+        }
+        return idat.toByteArray();
+    }
+
+    // Odczyt 8 kolejnych bitów od pozycji bitIndex (bity poza tablicą traktowane jako 0)
+    private static int readByte(int[] data, long bitIndex) {
+        int word = (int) (bitIndex >>> 5);
+        int shift = (int) (bitIndex & 31);
+        if (word >= data.length) return 0;
+        long lo = data[word] & 0xFFFFFFFFL;
+        long hi = (shift > 24 && word + 1 < data.length) ? (data[word + 1] & 0xFFFFFFFFL) : 0L;
+        return (int) (((hi << 32) | lo) >>> shift) & 0xFF;
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+}
@@ -0,0 +1,305 @@
+package org.example;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Sekwencyjny dekoder PNG wiersz po wierszu:
+ *  - Jedno przejście Inflater + odwracanie filtrów PNG (bez ponownego dekodowania od początku)
+ *  - Konwersja do ARGB przez ten sam typ obrazu, który wybrałby ImageIO (wynik identyczny z ImageIO.read)
+ *  - W pamięci tylko bieżący i poprzedni wiersz oraz bufor jednego pasma
+ * Obsługuje obrazy bez przeplotu; dla pozostałych open() rzuca IOException.
+ */
+class PngScanlineDecoder implements Closeable {
+
+    private static final byte[] PNG_SIGNATURE = {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+    };
+
+    private final int width;
+    private final int height;
+    private final int bitDepth;
+    private final int channels;
+    private final int bytesPerPixel;
+    private final ImageTypeSpecifier imageType;
+    private final DataInputStream scanlines;
+    private final Inflater inflater;
+
+    private byte[] current;
+    private byte[] previous;
+    private final int[] samples;
+    private BufferedImage band;
+    private int nextRow;
+
+    private PngScanlineDecoder(int width, int height, int bitDepth, int channels,
+                               ImageTypeSpecifier imageType, InputStream idat) {
+        this.width = width;
+        this.height = height;
+        this.bitDepth = bitDepth;
+        this.channels = channels;
+        this.bytesPerPixel = Math.max(1, channels * bitDepth / 8);
+        this.imageType = imageType;
+        this.inflater = new Inflater();
+        this.scanlines = new DataInputStream(new InflaterInputStream(idat, inflater, 8192));
+        int rowBytes = (width * channels * bitDepth + 7) / 8;
+        this.current = new byte[rowBytes];
+        this.previous = new byte[rowBytes];
+        this.samples = new int[width * channels];
+    }
+
+    static PngScanlineDecoder open(byte[] bytes) throws IOException {
+        if (bytes.length < 8 + 25) {
+            throw new IOException("Nie jest to obraz PNG.");
+        }
+        for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+            if (bytes[i] != PNG_SIGNATURE[i]) {
+                throw new IOException("Nie jest to obraz PNG.");
+            }
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 8, bytes.length - 8));
+        int length = in.readInt();
+        if (!"IHDR".equals(readType(in)) || length != 13) {
+            throw new IOException("Brak nagłówka IHDR.");
+        }
+        int width = in.readInt();
+        int height = in.readInt();
+        int bitDepth = in.readUnsignedByte();
+        int colorType = in.readUnsignedByte();
+        in.readUnsignedByte(); // kompresja
+        in.readUnsignedByte(); // filtrowanie
+        int interlace = in.readUnsignedByte();
+        if (interlace != 0) {
+            throw new IOException("Obrazy z przeplotem nie są obsługiwane.");
+        }
+        int channels = switch (colorType) {
+            case 0, 3 -> 1;
+            case 2 -> 3;
+            case 4 -> 2;
+            case 6 -> 4;
+            default -> throw new IOException("Nieznany typ koloru PNG: " + colorType);
+        };
+
+        // Typ docelowy taki sam jak w ImageIO.read – liczba pasm musi odpowiadać kanałom PNG
+        // (np. tRNS dla szarości/RGB dodaje kanał alfa – wtedy rezygnujemy)
+        ImageTypeSpecifier imageType;
+        ImageReader reader = null;
+        try (ImageInputStream iis = new ByteArrayImageInputStream(bytes)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                throw new IOException("Brak czytnika PNG.");
+            }
+            reader = readers.next();
+            reader.setInput(iis, true, false);
+            imageType = reader.getImageTypes(0).next();
+        } finally {
+            if (reader != null) reader.dispose();
+        }
+        if (imageType.getSampleModel().getNumBands() != channels) {
+            throw new IOException("Nieobsługiwany układ kanałów PNG.");
+        }
+
+        return new PngScanlineDecoder(width, height, bitDepth, channels, imageType, new IdatInputStream(bytes));
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    // Pominięcie wierszy (tylko inflate i odwrócenie filtrów, bez konwersji kolorów)
+    void skipRows(int rows) throws IOException {
+        for (int r = 0; r < rows; r++) {
+            nextScanline();
+        }
+    }
+
+    // Odczyt kolejnych wierszy do bufora ARGB (rows * width)
+    void readRows(int[] rgb, int rows) throws IOException {
+        if (band == null || band.getHeight() < rows) {
+            band = imageType.createBufferedImage(width, rows);
+        }
+        WritableRaster raster = band.getRaster();
+        for (int r = 0; r < rows; r++) {
+            nextScanline();
+            unpackSamples();
+            raster.setPixels(0, r, width, 1, samples);
+        }
+        band.getRGB(0, 0, width, rows, rgb, 0, width);
+    }
+
+    private void nextScanline() throws IOException {
+        if (nextRow >= height) {
+            throw new EOFException("Koniec danych obrazu.");
+        }
+        byte[] tmp = previous;
+        previous = current;
+        current = tmp;
+
+        int filter = scanlines.readUnsignedByte();
+        scanlines.readFully(current);
+        unfilter(filter);
+        nextRow++;
+    }
+
+    private void unfilter(int filter) throws IOException {
+        byte[] cur = current, prev = previous;
+        int bpp = bytesPerPixel;
+        int n = cur.length;
+        switch (filter) {
+            case 0 -> { }
+            case 1 -> {
+                for (int i = bpp; i < n; i++) cur[i] += cur[i - bpp];
+            }
+            case 2 -> {
+                for (int i = 0; i < n; i++) cur[i] += prev[i];
+            }
+            case 3 -> {
+                for (int i = 0; i < bpp; i++) cur[i] += (prev[i] & 0xFF) >>> 1;
+                for (int i = bpp; i < n; i++) cur[i] += ((cur[i - bpp] & 0xFF) + (prev[i] & 0xFF)) >>> 1;
+            }
+            case 4 -> {
+                for (int i = 0; i < bpp; i++) cur[i] += prev[i];
+                for (int i = bpp; i < n; i++) {
+                    int a = cur[i - bpp] & 0xFF, b = prev[i] & 0xFF, c = prev[i - bpp] & 0xFF;
+                    int p = a + b - c;
+                    int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+                    cur[i] += (pa <= pb && pa <= pc) ? a : (pb <= pc ? b : c);
+                }
+            }
+            default -> throw new IOException("Nieznany filtr PNG: " + filter);
+        }
+    }
+
+    private void unpackSamples() {
+        byte[] cur = current;
+        int count = samples.length;
+        switch (bitDepth) {
+            case 8 -> {
+                for (int i = 0; i < count; i++) samples[i] = cur[i] & 0xFF;
+            }
+            case 16 -> {
+                for (int i = 0; i < count; i++) samples[i] = ((cur[2 * i] & 0xFF) << 8) | (cur[2 * i + 1] & 0xFF);
+            }
+            default -> {
+                int mask = (1 << bitDepth) - 1;
+                int perByte = 8 / bitDepth;
+                for (int i = 0; i < count; i++) {
+                    int shift = 8 - bitDepth * (i % perByte + 1);
+                    samples[i] = (cur[i / perByte] >> shift) & mask;
+                }
+            }
+        }
+    }
+
+    private static String readType(DataInputStream in) throws IOException {
+        byte[] type = new byte[4];
+        in.readFully(type);
+        return new String(type, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public void close() {
+        inflater.end();
+    }
+
+    // Strumień danych ze wszystkich kolejnych chunków IDAT
+    private static class IdatInputStream extends InputStream {
+        private final byte[] bytes;
+        private int pos = 8;       // za sygnaturą PNG
+        private int remaining = 0; // bajty pozostałe w bieżącym IDAT
+        private boolean finished = false;
+
+        IdatInputStream(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private boolean ensureData() {
+            while (remaining == 0 && !finished) {
+                if (pos > 8) {
+                    pos += 4; // CRC poprzedniego IDAT
+                }
+                // Szukanie kolejnego IDAT (pomijamy chunki poprzedzające dane)
+                while (pos + 8 <= bytes.length) {
+                    int length = ((bytes[pos] & 0xFF) << 24) | ((bytes[pos + 1] & 0xFF) << 16)
+                            | ((bytes[pos + 2] & 0xFF) << 8) | (bytes[pos + 3] & 0xFF);
+                    String type = new String(bytes, pos + 4, 4, StandardCharsets.US_ASCII);
+                    pos += 8;
+                    if ("IDAT".equals(type)) {
+                        remaining = Math.min(length, bytes.length - pos);
+                        break;
+                    }
+                    if ("IEND".equals(type)) {
+                        finished = true;
+                        break;
+                    }
+                    pos += length + 4;
+                }
+                if (pos + 8 > bytes.length && remaining == 0) {
+                    finished = true;
+                }
+            }
+            return remaining > 0;
+        }
+
+        @Override
+        public int read() {
+            if (!ensureData()) return -1;
+            remaining--;
+            return bytes[pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!ensureData()) return -1;
+            int n = Math.min(len, remaining);
+            System.arraycopy(bytes, pos, b, off, n);
+            pos += n;
+            remaining -= n;
+            return n;
+        }
+    }
+
+    // Strumień ImageIO bezpośrednio na tablicy bajtów (bez kopii i bez pliku tymczasowego)
+    static class ByteArrayImageInputStream extends ImageInputStreamImpl {
+        private final byte[] bytes;
+
+        ByteArrayImageInputStream(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            bitOffset = 0;
+            return streamPos < bytes.length ? bytes[(int) streamPos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            bitOffset = 0;
+            if (streamPos >= bytes.length) return -1;
+            int n = (int) Math.min(len, bytes.length - streamPos);
+            System.arraycopy(bytes, (int) streamPos, b, off, n);
+            streamPos += n;
+            return n;
+        }
+
+        @Override
+        public long length() {
+            return bytes.length;
+        }
+    }
+}
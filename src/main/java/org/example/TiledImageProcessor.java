@@ -0,0 +1,229 @@
+package org.example;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+@Component
+public class TiledImageProcessor {
+
+    // Przedziały progu czerwieni: próg zmienia się co 5 w zakresie 0..255
+    private static final int RED_STEP = 5;
+    private static final int RED_BINS = 255 / RED_STEP + 1;
+    // Ile pierwszych wierszy z pikselami zapamiętujemy dla każdej kolumny (kolumny marginesu mają ich mniej niż próg)
+    private static final int MARGIN_SLOTS = ImageProcessor.LEFT_MARGIN_THRESHOLD - 1;
+
+    private final ImageProcessor imageProcessor;
+    private final boolean enabled;
+    private final long minPixels;
+    private final int bandHeight;
+
+    public TiledImageProcessor(ImageProcessor imageProcessor,
+                               @Value("${processing.tiled.enabled:false}") boolean enabled,
+                               @Value("${processing.tiled.min-pixels:12000000}") long minPixels,
+                               @Value("${processing.tiled.band-height:256}") int bandHeight) {
+        if (bandHeight <= 0) {
+            throw new IllegalArgumentException("Niepoprawna wysokość pasma: " + bandHeight);
+        }
+        this.imageProcessor = imageProcessor;
+        this.enabled = enabled;
+        this.minPixels = minPixels;
+        this.bandHeight = bandHeight;
+    }
+
+    // Tryb pasmowy tylko dla dużych obrazów PNG obsługiwanych przez PngScanlineDecoder – bez dekodowania danych
+    public boolean shouldProcessTiled(byte[] imageBytes) {
+        if (!enabled) return false;
+        try (PngScanlineDecoder decoder = PngScanlineDecoder.open(imageBytes)) {
+            return (long) decoder.getWidth() * decoder.getHeight() >= minPixels;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Przetwarzanie pasmami (stała pamięć względem jednego pasma):
+     *  - Przebieg 1: dekodowanie i binaryzacja pasmami, zbieranie statystyk wierszy i kolumn
+     *    (histogramy czerwieni dla siatki, liczby czarnych pikseli dla marginesu i linii poziomych)
+     *  - Wykrycie px na kratkę, lewego marginesu i 7 linii poziomych ze statystyk
+     *  - Przebieg 2: ponowne dekodowanie (do ostatniego wiersza odprowadzeń) i pakowanie bitów wprost do CompressedBitmap
+     * Każdy przebieg dekoduje obraz sekwencyjnie jeden raz (PngScanlineDecoder).
+     * Wynik jest identyczny z ImageProcessor.processImage (bez obrazów debugowych).
+     */
+    public List<ImageProcessor.CompressedBitmap> processImage(byte[] imageBytes) throws IOException {
+        int origWidth;
+        int origHeight;
+        try (PngScanlineDecoder decoder = PngScanlineDecoder.open(imageBytes)) {
+            origWidth = decoder.getWidth();
+            origHeight = decoder.getHeight();
+        }
+
+        // 1. Statystyki z pierwszego przebiegu
+        int[] rowRed = new int[origHeight * RED_BINS];
+        int[] colRed = new int[origWidth * RED_BINS];
+        int[] rowBlack = new int[origHeight];
+        int[] colBlack = new int[origWidth];
+        int[] marginRows = new int[origWidth * MARGIN_SLOTS];
+
+        streamRows(imageBytes, origWidth, origHeight, 0, origHeight,
+                (y, rgb, offset) -> {
+                    for (int x = 0; x < origWidth; x++) {
+                        int p = rgb[offset + x];
+                        int g = (p >> 8) & 0xFF, b = p & 0xFF;
+                        if (g <= ImageProcessor.GREEN_BLUE_THRESHOLD && b <= ImageProcessor.GREEN_BLUE_THRESHOLD) {
+                            int bin = ((p >> 16) & 0xFF) / RED_STEP;
+                            rowRed[y * RED_BINS + bin]++;
+                            colRed[x * RED_BINS + bin]++;
+                        }
+                    }
+                },
+                (y, row) -> {
+                    for (int x = 0; x < origWidth; x++) {
+                        if (row[x]) {
+                            rowBlack[y]++;
+                            if (colBlack[x] < MARGIN_SLOTS) {
+                                marginRows[x * MARGIN_SLOTS + colBlack[x]] = y;
+                            }
+                            colBlack[x]++;
+                        }
+                    }
+                });
+
+        // Histogramy -> liczności skumulowane: [bin] = liczba pikseli z R >= bin * RED_STEP
+        accumulateFromTop(rowRed, origHeight);
+        accumulateFromTop(colRed, origWidth);
+
+        // 2. Wykrywanie ilości px na kratkę małą
+        ImageProcessor.GridDetection grid = imageProcessor.detectGridLines(origWidth, origHeight,
+                (y, t) -> rowRed[y * RED_BINS + t / RED_STEP] * 100.0 / origWidth >= ImageProcessor.REQUIRED_RED_PERCENTAGE,
+                (x, t) -> colRed[x * RED_BINS + t / RED_STEP] * 100.0 / origHeight >= ImageProcessor.REQUIRED_RED_PERCENTAGE);
+        int smallPx = grid.smallPx;
+        System.out.println("Px na kratkę: " + (double)smallPx/1000000.0);
+
+        // 3. Lewy margines – pierwsza kolumna z co najmniej LEFT_MARGIN_THRESHOLD pikselami
+        int leftMargin = 0;
+        for (int x = 0; x < origWidth; x++) {
+            if (colBlack[x] >= ImageProcessor.LEFT_MARGIN_THRESHOLD) {
+                leftMargin = x;
+                break;
+            }
+        }
+        // Odjęcie pikseli z odciętych kolumn (każda ma mniej niż próg, więc wszystkie są zapamiętane)
+        for (int x = 0; x < leftMargin; x++) {
+            for (int k = 0; k < colBlack[x]; k++) {
+                rowBlack[marginRows[x * MARGIN_SLOTS + k]]--;
+            }
+        }
+        int width = origWidth - leftMargin;
+        int height = origHeight;
+
+        // 4. Szukamy 7 linii poziomych
+        List<Integer> hLines = null;
+        boolean fallback = false;
+        try {
+            hLines = imageProcessor.find7HorizontalLines(rowBlack, width);
+            if (hLines.size() != 7) {
+                throw new RuntimeException("Nie znaleziono 7 linii (znaleziono=" + hLines.size() + ")");
+            }
+        } catch (Exception e) {
+            System.err.println("Nieudana detekcja 7 linii poziomych: " + e.getMessage());
+            fallback = true;
+        }
+
+        // 5. Drugi przebieg – tniemy na 8×2, tylko wiersze należące do odprowadzeń
+        List<ImageProcessor.LeadRegion> regions = imageProcessor.computeLeadRegions(height, width, hLines, fallback);
+        List<ImageProcessor.CompressedBitmap> resultList = new ArrayList<>();
+        int fromY = height, toY = 0;
+        for (ImageProcessor.LeadRegion region : regions) {
+            resultList.add(ImageProcessor.newCompressedBitmap(region, smallPx));
+            if (region.height > 0) {
+                fromY = Math.min(fromY, region.y);
+                toY = Math.max(toY, region.y + region.height);
+            }
+        }
+        int offset = leftMargin;
+        streamRows(imageBytes, origWidth, origHeight, fromY, toY, null, (y, row) -> {
+            for (int i = 0; i < regions.size(); i++) {
+                ImageProcessor.LeadRegion region = regions.get(i);
+                if (y >= region.y && y < region.y + region.height) {
+                    ImageProcessor.packRow(row, offset, region, y - region.y, resultList.get(i).data);
+                }
+            }
+        });
+
+        return resultList;
+    }
+
+    private interface RawRowSink {
+        void accept(int y, int[] rgb, int offset);
+    }
+
+    private interface RowSink {
+        void accept(int y, boolean[] row);
+    }
+
+    /**
+     * Dekoduje sekwencyjnie (pasmami) wiersze [fromY-1, toY+1) i przekazuje:
+     *  - rawSink: surowe piksele ARGB wierszy [fromY, toY)
+     *  - sink: zbinaryzowane wiersze [fromY, toY) po usunięciu samotnych pikseli
+     * W pamięci jest jedno pasmo i trzy wiersze binarne (okno dla usuwania samotnych pikseli).
+     */
+    private void streamRows(byte[] imageBytes, int w, int h, int fromY, int toY,
+                            RawRowSink rawSink, RowSink sink) throws IOException {
+        if (fromY >= toY) return;
+        int decodeFrom = Math.max(0, fromY - 1);
+        int decodeTo = Math.min(h, toY + 1);
+        int[] rgb = new int[Math.min(bandHeight, decodeTo - decodeFrom) * w];
+        boolean[][] window = new boolean[3][w];
+        boolean[] cleaned = new boolean[w];
+
+        try (PngScanlineDecoder decoder = PngScanlineDecoder.open(imageBytes)) {
+            decoder.skipRows(decodeFrom);
+            for (int bandY = decodeFrom; bandY < decodeTo; bandY += bandHeight) {
+                int rows = Math.min(bandHeight, decodeTo - bandY);
+                decoder.readRows(rgb, rows);
+
+                for (int r = 0; r < rows; r++) {
+                    int y = bandY + r;
+                    int offset = r * w;
+                    if (rawSink != null && y >= fromY && y < toY) {
+                        rawSink.accept(y, rgb, offset);
+                    }
+                    boolean[] row = window[(y - decodeFrom) % 3];
+                    for (int x = 0; x < w; x++) {
+                        row[x] = ImageProcessor.binarize(rgb[offset + x]);
+                    }
+                    // Wiersz y-1 ma już obu sąsiadów
+                    emitRow(y - 1, h, fromY, toY, decodeFrom, window, cleaned, sink);
+                }
+            }
+        }
+        // Ostatni wiersz obrazu nie ma sąsiada poniżej
+        emitRow(decodeTo - 1, h, fromY, toY, decodeFrom, window, cleaned, sink);
+    }
+
+    private void emitRow(int y, int h, int fromY, int toY, int decodeFrom,
+                         boolean[][] window, boolean[] cleaned, RowSink sink) {
+        if (y < fromY || y >= toY) return;
+        boolean[] row = window[(y - decodeFrom) % 3];
+        if (y == 0 || y == h - 1) {
+            System.arraycopy(row, 0, cleaned, 0, row.length);
+        } else {
+            ImageProcessor.removeLonelyPixels(window[(y - 1 - decodeFrom) % 3], row,
+                    window[(y + 1 - decodeFrom) % 3], cleaned);
+        }
+        sink.accept(y, cleaned);
+    }
+
+    private static void accumulateFromTop(int[] bins, int lines) {
+        for (int i = 0; i < lines; i++) {
+            int base = i * RED_BINS;
+            for (int bin = RED_BINS - 2; bin >= 0; bin--) {
+                bins[base + bin] += bins[base + bin + 1];
+            }
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
 
@@ -13,15 +14,22 @@ import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerCo
 public class WebSocketConfig implements WebSocketConfigurer, WebSocketMessageBrokerConfigurer {
 
     private final ImageProcessor imageProcessor;
+    private final TiledImageProcessor tiledImageProcessor;
+    private final PngEncoder pngEncoder;
+    private final LeadImageStore leadImageStore;
 
     @Autowired
-    public WebSocketConfig(ImageProcessor imageProcessor) {
+    public WebSocketConfig(ImageProcessor imageProcessor, TiledImageProcessor tiledImageProcessor,
+                           PngEncoder pngEncoder, ObjectProvider<LeadImageStore> leadImageStore) {
         this.imageProcessor = imageProcessor;
+        this.tiledImageProcessor = tiledImageProcessor;
+        this.pngEncoder = pngEncoder;
+        this.leadImageStore = leadImageStore.getIfAvailable(); // null, gdy pobieranie przez HTTP jest wyłączone
     }
 
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
-        registry.addHandler(new BinaryWebSocketHandlerMP(imageProcessor), "/ws")
+        registry.addHandler(new BinaryWebSocketHandlerMP(imageProcessor, tiledImageProcessor, pngEncoder, leadImageStore), "/ws")
                 .setAllowedOrigins("*");
     }
 